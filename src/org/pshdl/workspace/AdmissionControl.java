@@ -0,0 +1,203 @@
+/*******************************************************************************
+ * PSHDL is a library and (trans-)compiler for PSHDL input. It generates
+ *     output suitable for implementation or simulation of it.
+ *
+ *     Copyright (C) 2013 Karsten Becker (feedback (at) pshdl (dot) org)
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *     This License does not grant permission to use the trade names, trademarks,
+ *     service marks, or product names of the Licensor, except as required for
+ *     reasonable and customary use in describing the origin of the Work.
+ *
+ * Contributors:
+ *     Karsten Becker - initial API and implementation
+ ******************************************************************************/
+package org.pshdl.workspace;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.pshdl.workspace.RepoCache.WorkspaceUsage;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Maps;
+
+/**
+ * Admission control for workspace operations. Mutations are rate limited per
+ * workspace and for the whole node, git operations are bounded per node and
+ * the size of a workspace is limited by its file count and total file size.
+ * All limits can be configured with system properties and reject with a
+ * {@link WorkspaceLimitException} instead of queuing.
+ */
+public class AdmissionControl {
+    public static final int MAX_FILES = Integer.getInteger("pshdl.workspace.maxFiles", 500);
+    public static final long MAX_BYTES = Long.getLong("pshdl.workspace.maxBytes", 50L * 1024 * 1024);
+    public static final int WORKSPACE_MUTATIONS_PER_SECOND = Integer.getInteger("pshdl.workspace.mutationsPerSecond", 5);
+    public static final int WORKSPACE_MUTATION_BURST = Integer.getInteger("pshdl.workspace.mutationBurst", 20);
+    public static final int GLOBAL_MUTATIONS_PER_SECOND = Integer.getInteger("pshdl.global.mutationsPerSecond", 200);
+    public static final int GLOBAL_MUTATION_BURST = Integer.getInteger("pshdl.global.mutationBurst", 400);
+    public static final int MAX_GIT_OPERATIONS = Integer.getInteger("pshdl.git.maxOperations", Runtime.getRuntime().availableProcessors());
+    public static final int MAX_QUEUED_LOCKS = Integer.getInteger("pshdl.workspace.maxQueuedLocks", 8);
+    public static final long WAIT_TIMEOUT_MS = Long.getLong("pshdl.workspace.waitTimeoutMs", 10000);
+    public static final long GIT_PERMIT_TIMEOUT_MS = Long.getLong("pshdl.git.permitTimeoutMs", 100);
+
+    private static class TokenBucket {
+        private final double tokensPerNano;
+        private final double capacity;
+        private double tokens;
+        private long lastRefill;
+
+        public TokenBucket(int perSecond, int capacity) {
+            this.tokensPerNano = perSecond / (double) TimeUnit.SECONDS.toNanos(1);
+            this.capacity = capacity;
+            this.tokens = capacity;
+            this.lastRefill = System.nanoTime();
+        }
+
+        public synchronized boolean tryAcquire() {
+            final long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + ((now - lastRefill) * tokensPerNano));
+            lastRefill = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+
+        public synchronized void refund() {
+            tokens = Math.min(capacity, tokens + 1);
+        }
+    }
+
+    private static class TokenBucketLoader extends CacheLoader<String, TokenBucket> {
+
+        @Override
+        public TokenBucket load(String key) throws Exception {
+            return new TokenBucket(WORKSPACE_MUTATIONS_PER_SECOND, WORKSPACE_MUTATION_BURST);
+        }
+    }
+
+    private static final TokenBucket globalBucket = new TokenBucket(GLOBAL_MUTATIONS_PER_SECOND, GLOBAL_MUTATION_BURST);
+    private static LoadingCache<String, TokenBucket> workspaceBuckets = CacheBuilder.newBuilder().expireAfterAccess(10, TimeUnit.MINUTES).build(new TokenBucketLoader());
+    private static final Semaphore gitPermits = new Semaphore(MAX_GIT_OPERATIONS, true);
+    private static final ThreadLocal<int[]> heldGitPermits = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+
+    /**
+     * Takes one token from the bucket of the workspace and one from the global
+     * bucket. The workspace bucket is checked first so that a single busy
+     * workspace can not drain the global bucket, its token is refunded when
+     * the global bucket rejects.
+     */
+    public static void admitMutation(String wid) {
+        final TokenBucket workspaceBucket = workspaceBuckets.getUnchecked(wid);
+        if (!workspaceBucket.tryAcquire()) {
+            throw new WorkspaceLimitException(wid, "Too many modifications of this workspace, please try again later");
+        }
+        if (!globalBucket.tryAcquire()) {
+            workspaceBucket.refund();
+            throw new WorkspaceLimitException(wid, "The server is busy, please try again later");
+        }
+    }
+
+    /**
+     * Gives back the tokens taken by {@link #admitMutation(String)} for a
+     * mutation that was rejected before it changed anything.
+     */
+    public static void refundMutation(String wid) {
+        workspaceBuckets.getUnchecked(wid).refund();
+        globalBucket.refund();
+    }
+
+    /**
+     * Checks that the given files, which have already been written, do not
+     * push the workspace above {@link #MAX_FILES} or {@link #MAX_BYTES}. A
+     * change that does not grow the workspace is always accepted, even if the
+     * workspace is already above its quota. Has to be called while holding the
+     * workspace lock.
+     */
+    public static void checkQuota(File workingDir, File... newFiles) {
+        final Map<String, Long> proposed = Maps.newHashMap();
+        for (final File newFile : newFiles) {
+            proposed.put(WorkspaceHelper.makeRelative(newFile, workingDir), newFile.length());
+        }
+        final String wid = workingDir.getName();
+        final WorkspaceUsage usage = RepoCache.loadUsage(wid);
+        final int currentFileCount;
+        final long currentBytes;
+        int fileCount;
+        long totalBytes;
+        synchronized (usage) {
+            currentFileCount = usage.getFileCount();
+            currentBytes = usage.getTotalBytes();
+            fileCount = currentFileCount;
+            totalBytes = currentBytes;
+            for (final Entry<String, Long> e : proposed.entrySet()) {
+                final Long old = usage.getSize(e.getKey());
+                if (old == null) {
+                    fileCount++;
+                } else {
+                    totalBytes -= old;
+                }
+                totalBytes += e.getValue();
+            }
+        }
+        if ((fileCount > MAX_FILES) && (fileCount > currentFileCount)) {
+            throw new WorkspaceLimitException(wid, "The workspace can not contain more than " + MAX_FILES + " files");
+        }
+        if ((totalBytes > MAX_BYTES) && (totalBytes > currentBytes)) {
+            throw new WorkspaceLimitException(wid, "The workspace can not be larger than " + MAX_BYTES + " bytes");
+        }
+    }
+
+    /**
+     * Takes a git permit of this node unless the current thread already holds
+     * one. This is called while holding the workspace lock, so it only waits
+     * {@link #GIT_PERMIT_TIMEOUT_MS} to not block other waiters of the
+     * workspace.
+     */
+    public static void acquireGitPermit(String wid) {
+        final int[] held = heldGitPermits.get();
+        if (held[0] == 0) {
+            try {
+                if (!gitPermits.tryAcquire(GIT_PERMIT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    throw new WorkspaceLimitException(wid, "Too many concurrent git operations, please try again later");
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+        held[0]++;
+    }
+
+    public static void releaseGitPermit() {
+        final int[] held = heldGitPermits.get();
+        held[0]--;
+        if (held[0] == 0) {
+            gitPermits.release();
+        }
+    }
+}
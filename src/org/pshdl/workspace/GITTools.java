@@ -30,10 +30,13 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.eclipse.jgit.api.AddCommand;
+import org.eclipse.jgit.api.CheckoutCommand;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.Status;
 import org.eclipse.jgit.lib.Repository;
@@ -43,10 +46,11 @@ import org.pshdl.rest.models.RepoInfo;
 import com.google.common.collect.Maps;
 
 public class GITTools {
-    private static ConcurrentMap<String, Lock> locks = Maps.newConcurrentMap();
+    private static ConcurrentMap<String, ReentrantLock> locks = Maps.newConcurrentMap();
+    private static ConcurrentMap<String, AtomicInteger> waiters = Maps.newConcurrentMap();
 
     public static void commitAll(File workingdir, String message) throws Exception {
-        final Lock lock = lock(workingdir);
+        final Lock lock = lockForGit(workingdir);
         try {
             final Git git = getOrCreateRepository(workingdir);
             final Status statusCall = git.status().call();
@@ -68,20 +72,70 @@ public class GITTools {
                 }
             }
         } finally {
-            lock.unlock();
+            unlockForGit(lock);
         }
     }
 
+    /**
+     * Locks the workspace. Instead of queuing without bound, a
+     * {@link WorkspaceLimitException} is thrown when too many threads are
+     * already waiting for the workspace or the lock could not be acquired
+     * within {@link AdmissionControl#WAIT_TIMEOUT_MS}.
+     */
     public static Lock lock(File workingdir) {
+        final String key = workingdir.getAbsolutePath();
         final ReentrantLock newLock = new ReentrantLock(true);
-        Lock lock = locks.putIfAbsent(workingdir.getAbsolutePath(), newLock);
+        ReentrantLock lock = locks.putIfAbsent(key, newLock);
         if (lock == null) {
             lock = newLock;
         }
-        lock.lock();
+        if (lock.isHeldByCurrentThread()) {
+            lock.lock();
+            return lock;
+        }
+        final AtomicInteger newWaiting = new AtomicInteger();
+        AtomicInteger waiting = waiters.putIfAbsent(key, newWaiting);
+        if (waiting == null) {
+            waiting = newWaiting;
+        }
+        final String wid = workingdir.getName();
+        try {
+            if (waiting.incrementAndGet() > AdmissionControl.MAX_QUEUED_LOCKS) {
+                throw new WorkspaceLimitException(wid, "Too many pending operations on this workspace, please try again later");
+            }
+            if (!lock.tryLock(AdmissionControl.WAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                throw new WorkspaceLimitException(wid, "The workspace is busy, please try again later");
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            waiting.decrementAndGet();
+        }
+        return lock;
+    }
+
+    /**
+     * Locks the workspace and then takes one of the git permits of this node,
+     * so that waiting for a busy workspace does not hold a permit. Both can be
+     * re-acquired by the same thread.
+     */
+    private static Lock lockForGit(File workingdir) {
+        final Lock lock = lock(workingdir);
+        try {
+            AdmissionControl.acquireGitPermit(workingdir.getName());
+        } catch (final RuntimeException e) {
+            lock.unlock();
+            throw e;
+        }
         return lock;
     }
 
+    private static void unlockForGit(Lock lock) {
+        AdmissionControl.releaseGitPermit();
+        lock.unlock();
+    }
+
     private static Git getOrCreateRepository(File workingDir) throws IOException {
         final File dir = new File(workingDir, ".git");
         final FileRepositoryBuilder builder = new FileRepositoryBuilder();
@@ -96,7 +150,7 @@ public class GITTools {
     }
 
     public static void addToGit(File workingDir, File newFile) throws Exception {
-        final Lock lock = lock(workingDir);
+        final Lock lock = lockForGit(workingDir);
         try {
             final File[] files = { newFile };
             AddCommand add = getOrCreateRepository(workingDir).add();
@@ -105,18 +159,31 @@ public class GITTools {
             }
             add.call();
         } finally {
-            lock.unlock();
+            unlockForGit(lock);
+        }
+    }
+
+    public static void checkout(File workingDir, String... relPaths) throws Exception {
+        final Lock lock = lockForGit(workingDir);
+        try {
+            CheckoutCommand checkout = getOrCreateRepository(workingDir).checkout();
+            for (final String relPath : relPaths) {
+                checkout = checkout.addPath(relPath);
+            }
+            checkout.call();
+        } finally {
+            unlockForGit(lock);
         }
     }
 
     public static boolean isClean(File workingDir) throws Exception {
-        final Lock lock = lock(workingDir);
+        final Lock lock = lockForGit(workingDir);
         try {
             final Git git = getOrCreateRepository(workingDir);
             final Status status = git.status().call();
             return status.isClean();
         } finally {
-            lock.unlock();
+            unlockForGit(lock);
         }
     }
 }
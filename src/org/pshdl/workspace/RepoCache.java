@@ -31,6 +31,7 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -50,6 +51,7 @@ import com.google.common.cache.LoadingCache;
 import com.google.common.cache.RemovalListener;
 import com.google.common.cache.RemovalNotification;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.io.Files;
 
 public class RepoCache {
@@ -58,26 +60,75 @@ public class RepoCache {
     private static final ObjectReader jsonReader = JSONHelper.getReader(RepoInfo.class);
     private static final Logger log = Logger.getLogger(RepoCache.class.getName());
 
-    private static class JsonFileLoader extends CacheLoader<String, RepoInfo> {
+    /**
+     * The number of files and their total size of a workspace, kept up to date
+     * with the files of the cached {@link RepoInfo}.
+     */
+    static class WorkspaceUsage {
+        private final Map<String, Long> sizes = Maps.newHashMap();
+        private long totalBytes;
+
+        public synchronized void put(String relPath, long size) {
+            final Long old = sizes.put(relPath, size);
+            if (old != null) {
+                totalBytes -= old;
+            }
+            totalBytes += size;
+        }
+
+        public synchronized void remove(String relPath) {
+            final Long old = sizes.remove(relPath);
+            if (old != null) {
+                totalBytes -= old;
+            }
+        }
+
+        public synchronized Long getSize(String relPath) {
+            return sizes.get(relPath);
+        }
+
+        public synchronized int getFileCount() {
+            return sizes.size();
+        }
+
+        public synchronized long getTotalBytes() {
+            return totalBytes;
+        }
+    }
+
+    private static class CachedRepo {
+        public final RepoInfo repo;
+        public final WorkspaceUsage usage = new WorkspaceUsage();
+
+        public CachedRepo(RepoInfo repo, File wd) {
+            this.repo = repo;
+            for (final FileInfo fi : repo.getFiles()) {
+                usage.put(fi.record.relPath, new File(wd, fi.record.relPath).length());
+            }
+        }
+    }
+
+    private static class JsonFileLoader extends CacheLoader<String, CachedRepo> {
 
         @Override
-        public RepoInfo load(String key) throws Exception {
-            return loadRepoFromFile(WorkspaceHelper.getWorkspacePath(key));
+        public CachedRepo load(String key) throws Exception {
+            final File wd = WorkspaceHelper.getWorkspacePath(key);
+            return new CachedRepo(loadRepoFromFile(wd), wd);
         }
     }
 
-    private static class JsonWriter implements RemovalListener<String, RepoInfo> {
+    private static class JsonWriter implements RemovalListener<String, CachedRepo> {
 
         @Override
-        public void onRemoval(RemovalNotification<String, RepoInfo> notification) {
-            saveToFile(notification.getValue());
+        public void onRemoval(RemovalNotification<String, CachedRepo> notification) {
+            saveToFile(notification.getValue().repo);
         }
 
     }
 
-    private static LoadingCache<String, RepoInfo> repoCache = CacheBuilder.newBuilder().removalListener(new JsonWriter()).maximumSize(100).build(new JsonFileLoader());
+    private static LoadingCache<String, CachedRepo> repoCache = CacheBuilder.newBuilder().removalListener(new JsonWriter()).maximumSize(100).build(new JsonFileLoader());
 
-    public static RepoInfo loadRepo(String wd) {
+    private static CachedRepo loadCached(String wd) {
         try {
             return repoCache.get(wd);
         } catch (final ExecutionException e) {
@@ -85,6 +136,14 @@ public class RepoCache {
         }
     }
 
+    public static RepoInfo loadRepo(String wd) {
+        return loadCached(wd).repo;
+    }
+
+    static WorkspaceUsage loadUsage(String wd) {
+        return loadCached(wd).usage;
+    }
+
     private static RepoInfo loadRepoFromFile(File wd) {
         final String wid = wd.getName();
         if (!wd.exists()) {
@@ -186,11 +245,13 @@ public class RepoCache {
     }
 
     public static FileInfo removeFile(File workingDir, String f) {
-        final RepoInfo repo = loadRepo(workingDir.getName());
+        final CachedRepo cached = loadCached(workingDir.getName());
+        final RepoInfo repo = cached.repo;
         for (final Iterator<FileInfo> iterator = repo.getFiles().iterator(); iterator.hasNext();) {
             final FileInfo fi = iterator.next();
             if (fi.record.relPath.equals(f)) {
                 iterator.remove();
+                cached.usage.remove(f);
                 saveToFile(repo);
                 return fi;
             }
@@ -199,19 +260,23 @@ public class RepoCache {
     }
 
     public static void addFile(File workingDir, FileInfo newFile) {
-        final RepoInfo repo = loadRepo(workingDir.getName());
+        final CachedRepo cached = loadCached(workingDir.getName());
+        final RepoInfo repo = cached.repo;
         repo.getFiles().add(newFile);
+        cached.usage.put(newFile.record.relPath, new File(workingDir, newFile.record.relPath).length());
         saveToFile(repo);
     }
 
     public static FileInfo updateFile(File workingDir, File f) throws IOException {
-        final RepoInfo repo = loadRepo(workingDir.getName());
+        final CachedRepo cached = loadCached(workingDir.getName());
+        final RepoInfo repo = cached.repo;
         FileInfo info = repo.getFile(f.getName());
         if (info == null) {
             info = new FileInfo();
             repo.getFiles().add(info);
         }
         info.setFromFile(f, CheckType.unknown, workingDir.getName(), workingDir);
+        cached.usage.put(info.record.relPath, f.length());
         saveToFile(repo);
         return info;
     }
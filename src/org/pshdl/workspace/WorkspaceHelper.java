@@ -34,6 +34,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.locks.Lock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
@@ -68,27 +69,87 @@ public class WorkspaceHelper {
     };
 
     public static void addFile(File workingDir, boolean created, File... newFiles) throws Exception {
+        final String wid = workingDir.getName();
         final List<FileInfo> added = Lists.newLinkedList();
         final List<FileInfo> updated = Lists.newLinkedList();
-        for (final File newFile : newFiles) {
-            if (created) {
-                final FileInfo newInfo = new FileInfo();
-                newInfo.setFromFile(newFile, CheckType.unknown, workingDir.getName(), workingDir);
-                RepoCache.addFile(workingDir, newInfo);
-                GITTools.addToGit(workingDir, newFile);
-                added.add(newInfo);
-            } else {
-                final FileInfo newInfo = RepoCache.updateFile(workingDir, newFile);
-                updated.add(newInfo);
+        boolean changed = false;
+        final Lock lock = GITTools.lock(workingDir);
+        try {
+            try {
+                AdmissionControl.admitMutation(wid);
+            } catch (final WorkspaceLimitException e) {
+                revertFiles(workingDir, created, e, newFiles);
+                throw e;
+            }
+            try {
+                AdmissionControl.checkQuota(workingDir, newFiles);
+                AdmissionControl.acquireGitPermit(wid);
+            } catch (final WorkspaceLimitException e) {
+                AdmissionControl.refundMutation(wid);
+                revertFiles(workingDir, created, e, newFiles);
+                throw e;
+            }
+            // The git permit is taken once for all git calls, so they can not
+            // be rejected halfway. RepoInfo is only updated after git succeeded.
+            try {
+                if (created) {
+                    for (final File newFile : newFiles) {
+                        GITTools.addToGit(workingDir, newFile);
+                    }
+                }
+                if (!GITTools.isClean(workingDir)) {
+                    GITTools.commitAll(workingDir, "Updated/Added file(s):" + Arrays.toString(newFiles));
+                    changed = true;
+                }
+            } finally {
+                AdmissionControl.releaseGitPermit();
             }
+            for (final File newFile : newFiles) {
+                if (created) {
+                    final FileInfo newInfo = new FileInfo();
+                    newInfo.setFromFile(newFile, CheckType.unknown, wid, workingDir);
+                    RepoCache.addFile(workingDir, newInfo);
+                    added.add(newInfo);
+                } else {
+                    final FileInfo newInfo = RepoCache.updateFile(workingDir, newFile);
+                    updated.add(newInfo);
+                }
+            }
+        } finally {
+            lock.unlock();
         }
-        if (!GITTools.isClean(workingDir)) {
-            GITTools.commitAll(workingDir, "Updated/Added file(s):" + Arrays.toString(newFiles));
+        if (changed) {
             if (!added.isEmpty()) {
-                service.pushMessage(workingDir.getName(), new Message<>("FileInfo[]", Message.WORK_ADDED, added.toArray(new FileInfo[added.size()]), null));
+                service.pushMessage(wid, new Message<>("FileInfo[]", Message.WORK_ADDED, added.toArray(new FileInfo[added.size()]), null));
             }
             if (!updated.isEmpty()) {
-                service.pushMessage(workingDir.getName(), new Message<>("FileInfo[]", Message.WORK_UPDATED, updated.toArray(new FileInfo[updated.size()]), null));
+                service.pushMessage(wid, new Message<>("FileInfo[]", Message.WORK_UPDATED, updated.toArray(new FileInfo[updated.size()]), null));
+            }
+        }
+    }
+
+    /**
+     * Restores rejected files that are tracked by the workspace to their state
+     * in git and deletes the ones that were just created, so that their
+     * content is not committed later on. Untracked files that were updated are
+     * left alone. Failures are added to the rejection as suppressed exceptions.
+     */
+    private static void revertFiles(File workingDir, boolean created, WorkspaceLimitException rejection, File... files) {
+        final RepoCache.WorkspaceUsage usage = RepoCache.loadUsage(workingDir.getName());
+        final List<String> tracked = Lists.newLinkedList();
+        for (final File file : files) {
+            final String relPath = makeRelative(file, workingDir);
+            if (usage.getSize(relPath) != null) {
+                tracked.add(relPath);
+            } else if (created && file.exists() && !file.delete()) {
+                LOG.log(Level.WARNING, "Failed to delete rejected file:" + file);
+            }
+        }
+        if (!tracked.isEmpty()) {
+            try {
+                GITTools.checkout(workingDir, tracked.toArray(new String[tracked.size()]));
+            } catch (final Exception e) {
+                rejection.addSuppressed(e);
             }
         }
     }
@@ -116,14 +177,24 @@ public class WorkspaceHelper {
     }
 
     public static void deleteFile(File workingDir, String f) throws Exception {
-        final FileInfo removed = RepoCache.removeFile(workingDir, f);
-        if (removed != null) {
-            final File file = new File(workingDir, f);
-            if (!file.delete()) {
-                LOG.log(Level.WARNING, "Failed to delete:" + file);
+        final String wid = workingDir.getName();
+        final FileInfo removed;
+        final Lock lock = GITTools.lock(workingDir);
+        try {
+            AdmissionControl.admitMutation(wid);
+            removed = RepoCache.removeFile(workingDir, f);
+            if (removed != null) {
+                final File file = new File(workingDir, f);
+                if (!file.delete()) {
+                    LOG.log(Level.WARNING, "Failed to delete:" + file);
+                }
+                deleteGeneratedFiles(wid, removed, null);
             }
-            deleteGeneratedFiles(workingDir.getName(), removed, null);
-            service.pushMessage(workingDir.getName(), new Message<>("FileInfo", Message.WORK_DELETED, removed, null));
+        } finally {
+            lock.unlock();
+        }
+        if (removed != null) {
+            service.pushMessage(wid, new Message<>("FileInfo", Message.WORK_DELETED, removed, null));
         }
     }
 
@@ -131,8 +202,29 @@ public class WorkspaceHelper {
         final String wid = workingDir.getName();
         name = name.trim();
         eMail = eMail.trim();
-        final RepoInfo repo = RepoCache.createRepo(wid, eMail, name);
-        GITTools.commitAll(workingDir, "Created Repo");
+        final RepoInfo repo;
+        final Lock lock = GITTools.lock(workingDir);
+        try {
+            // Every new workspace starts with a full bucket, so creation is
+            // effectively only limited by the global bucket
+            AdmissionControl.admitMutation(wid);
+            try {
+                AdmissionControl.acquireGitPermit(wid);
+            } catch (final WorkspaceLimitException e) {
+                AdmissionControl.refundMutation(wid);
+                throw e;
+            }
+            // The permit is taken before the workspace is created, so that
+            // commitAll can not be rejected after createRepo
+            try {
+                repo = RepoCache.createRepo(wid, eMail, name);
+                GITTools.commitAll(workingDir, "Created Repo");
+            } finally {
+                AdmissionControl.releaseGitPermit();
+            }
+        } finally {
+            lock.unlock();
+        }
         service.pushMessage(wid, new Message<>("RepoInfo", Message.WORK_CREATED_WORKSPACE, repo, null));
     }
 
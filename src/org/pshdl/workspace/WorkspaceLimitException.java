@@ -0,0 +1,47 @@
+/*******************************************************************************
+ * PSHDL is a library and (trans-)compiler for PSHDL input. It generates
+ *     output suitable for implementation or simulation of it.
+ *
+ *     Copyright (C) 2013 Karsten Becker (feedback (at) pshdl (dot) org)
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *     This License does not grant permission to use the trade names, trademarks,
+ *     service marks, or product names of the Licensor, except as required for
+ *     reasonable and customary use in describing the origin of the Work.
+ *
+ * Contributors:
+ *     Karsten Becker - initial API and implementation
+ ******************************************************************************/
+package org.pshdl.workspace;
+
+/**
+ * Thrown when a workspace operation is rejected because a rate limit, a
+ * quota or the git concurrency limit of this node has been reached. The
+ * operation has not been performed and may be retried later.
+ */
+public class WorkspaceLimitException extends IllegalStateException {
+    private static final long serialVersionUID = 2407371424163640113L;
+
+    private final String wid;
+
+    public WorkspaceLimitException(String wid, String message) {
+        super(message + " (workspace:" + wid + ")");
+        this.wid = wid;
+    }
+
+    public String getWorkspaceID() {
+        return wid;
+    }
+}